@@ -58,6 +58,9 @@ public interface Languages {
     public final String[] ERR_FILE2 = {"' not exist!", "' non esiste!"};
     public final String[] ERR_WRITE = {"Write error!", "Errore di scrittura!"};
     public final String[] ERR_IO = {"IO error!", "Errore di IO"};
-    public final String[] ERR_TEXT_LEN = {"Text too long (max 4296).", "Testo troppo lungo (max 4296)."};
+    public final String[] ERR_TEXT_LEN = {"Text too long (max ", "Testo troppo lungo (max "};
+    public final String[] TEXT_LEN_CHARS = {" chars).", " caratteri)."};
+    public final String[] TEXT_LEN_BYTES = {" UTF-8 bytes).", " byte UTF-8)."};
+    public final String[] ERR_TEXT_FILE_LEN = {"File text too long for a QR code!", "Testo del file troppo lungo per un QR code!"};
     public final String[] ERR_ENCODING = {"Encoding error!", "Errore di Codifica"};
 }
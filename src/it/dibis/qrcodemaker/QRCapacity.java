@@ -0,0 +1,258 @@
+package it.dibis.qrcodemaker;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Version;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCapacity.java
+ * @version 1.0 (19-10-2026)
+ * @description: size of the encoded text and QR version, computed as ZXing's Encoder does but without encoding
+ */
+final class QRCapacity {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCapacity.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    // Modes chosen by the encoder (no Kanji with UTF-8)
+    static final int NUMERIC = 0;
+    static final int ALPHANUMERIC = 1;
+    static final int BYTE = 2;
+    static final String[] MODE_NAMES = {"numeric", "alphanumeric", "byte"};
+
+    static final int MAX_VERSION = 40;
+
+    private static final int MODE_BITS = 4;
+    private static final int ECI_BITS = 4 + 8; // ECI mode + UTF-8 designator (CHARACTER_SET hint, byte mode only)
+
+    // Character count bits for versions 1-9, 10-26, 27-40
+    private static final int[][] COUNT_BITS = {{10, 12, 14}, {9, 11, 13}, {8, 16, 16}};
+
+    // Data bits [EC level][version], from ZXing's version table
+    private static final int[][] DATA_BITS = new int[ErrorCorrectionLevel.values().length][MAX_VERSION + 1];
+
+    // Max characters (numeric, alphanumeric) or UTF-8 bytes (byte) [EC level][mode][version]
+    private static final int[][][] MAX_COUNT = new int[ErrorCorrectionLevel.values().length][3][MAX_VERSION + 1];
+
+    static {
+        for (ErrorCorrectionLevel ecLevel : ErrorCorrectionLevel.values()) {
+            for (int v = 1; v <= MAX_VERSION; v++) {
+                Version version = Version.getVersionForNumber(v);
+                int dataCodewords = version.getTotalCodewords() -
+                        version.getECBlocksForLevel(ecLevel).getTotalECCodewords();
+                DATA_BITS[ecLevel.ordinal()][v] = dataCodewords * 8;
+                for (int mode = NUMERIC; mode <= BYTE; mode++) {
+                    MAX_COUNT[ecLevel.ordinal()][mode][v] = maxCount(dataCodewords * 8 - totalBits(0, mode, v), mode, v);
+                }
+            }
+        }
+    }
+
+    private QRCapacity() {
+    }
+
+    /**
+     * Same choice as Encoder.chooseMode()
+     *
+     * @param text
+     * @return {NUMERIC | ALPHANUMERIC | BYTE}
+     */
+    static int chooseMode(CharSequence text) {
+        boolean hasNumeric = false;
+        boolean hasAlphanumeric = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasNumeric = true;
+            } else if (isAlphanumeric(c)) {
+                hasAlphanumeric = true;
+            } else {
+                return BYTE;
+            }
+        }
+
+        if (hasAlphanumeric) return ALPHANUMERIC;
+        if (hasNumeric) return NUMERIC;
+        return BYTE;
+    }
+
+    /**
+     * Characters (numeric and alphanumeric mode) or UTF-8 bytes (byte mode) of the text
+     *
+     * @param text
+     * @param mode
+     * @return
+     */
+    static int charCount(CharSequence text, int mode) {
+        if (mode != BYTE) return text.length();
+
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes += 1; // Unpaired surrogate: replaced by '?'
+            } else {
+                bytes += 3;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Bits of the data segment, without mode and character count
+     *
+     * @param count from charCount()
+     * @param mode
+     * @return
+     */
+    static int dataBits(int count, int mode) {
+        switch (mode) {
+            case NUMERIC:
+                return (count / 3) * 10 + (count % 3 == 2 ? 7 : count % 3 == 1 ? 4 : 0);
+            case ALPHANUMERIC:
+                return (count / 2) * 11 + (count % 2) * 6;
+            default:
+                return count * 8;
+        }
+    }
+
+    /**
+     * Total bits of the symbol content with the given version
+     *
+     * @param count
+     * @param mode
+     * @param version
+     * @return
+     */
+    static int totalBits(int count, int mode, int version) {
+        return (mode == BYTE ? ECI_BITS : 0) + MODE_BITS + countBits(mode, version) + dataBits(count, mode);
+    }
+
+    /**
+     * Version chosen by the encoder, as Encoder.recommendVersion() (provisional version 1 first)
+     *
+     * @param count
+     * @param mode
+     * @param ecLevel
+     * @return the version, or 0 if the text doesn't fit in version 40
+     */
+    static int version(int count, int mode, ErrorCorrectionLevel ecLevel) {
+        int provisional = chooseVersion(totalBits(count, mode, 1), ecLevel);
+        if (provisional == 0) return 0;
+        int version = chooseVersion(totalBits(count, mode, provisional), ecLevel);
+        if (version == 0 || count >= (1 << countBits(mode, version))) return 0; // Count field overflow
+        return version;
+    }
+
+    /**
+     * Version chosen by the encoder for the text
+     *
+     * @param text
+     * @param ecLevel
+     * @return the version, or 0 if the text doesn't fit in version 40
+     */
+    static int version(CharSequence text, ErrorCorrectionLevel ecLevel) {
+        int mode = chooseMode(text);
+        return version(charCount(text, mode), mode, ecLevel);
+    }
+
+    /**
+     * Max characters (numeric, alphanumeric mode) or UTF-8 bytes (byte mode) of a version
+     *
+     * @param mode
+     * @param version
+     * @param ecLevel
+     * @return
+     */
+    static int maxCount(int mode, int version, ErrorCorrectionLevel ecLevel) {
+        return MAX_COUNT[ecLevel.ordinal()][mode][version];
+    }
+
+    /**
+     * Check, in one pass and without encoding, that the text fits in a QR code.
+     * Exact for the standard encoding; with the compact one (mixed segments) only the texts
+     * that can't fit in any way are rejected, the others are left to the encoder.
+     *
+     * @param text
+     * @param ecLevel
+     * @param compact
+     * @return
+     */
+    static boolean fits(CharSequence text, ErrorCorrectionLevel ecLevel, boolean compact) {
+        int mode = chooseMode(text);
+        if (charCount(text, mode) <= MAX_COUNT[ecLevel.ordinal()][mode][MAX_VERSION]) return true;
+        if (!compact) return false;
+
+        // Lower bound of the compact encoding: every char in its cheapest mode, one segment header.
+        // The other chars cost at least 8 bits (a single byte charset, or 13 bits for a Kanji)
+        long sixths = 0; // Sixths of bit: digits cost 10/3 bits, alphanumeric chars 11/2
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sixths += 20;
+            } else if (isAlphanumeric(c)) {
+                sixths += 33;
+            } else {
+                sixths += 48;
+            }
+        }
+        return MODE_BITS + countBits(NUMERIC, MAX_VERSION) + sixths / 6 <= DATA_BITS[ecLevel.ordinal()][MAX_VERSION];
+    }
+
+    /**
+     * Data bits of a version
+     *
+     * @param version
+     * @param ecLevel
+     * @return
+     */
+    static int capacity(int version, ErrorCorrectionLevel ecLevel) {
+        return DATA_BITS[ecLevel.ordinal()][version];
+    }
+
+    /**
+     * Inverse of dataBits(), limited by the character count field
+     */
+    private static int maxCount(int bits, int mode, int version) {
+        int count;
+        switch (mode) {
+            case NUMERIC:
+                count = (bits / 10) * 3 + (bits % 10 >= 7 ? 2 : bits % 10 >= 4 ? 1 : 0);
+                break;
+            case ALPHANUMERIC:
+                count = (bits / 11) * 2 + (bits % 11 >= 6 ? 1 : 0);
+                break;
+            default:
+                count = bits / 8;
+                break;
+        }
+        return Math.max(0, Math.min(count, (1 << countBits(mode, version)) - 1));
+    }
+
+    private static int countBits(int mode, int version) {
+        return COUNT_BITS[mode][version <= 9 ? 0 : version <= 26 ? 1 : 2];
+    }
+
+    private static int chooseVersion(int bits, ErrorCorrectionLevel ecLevel) {
+        int[] capacity = DATA_BITS[ecLevel.ordinal()];
+        for (int v = 1; v <= MAX_VERSION; v++) {
+            if (bits <= capacity[v]) return v;
+        }
+
+        return 0;
+    }
+
+    private static boolean isAlphanumeric(char c) {
+        return (c >= 'A' && c <= 'Z') || c == ' ' || c == '$' || c == '%' || c == '*' ||
+                c == '+' || c == '-' || c == '.' || c == '/' || c == ':';
+    }
+}
@@ -0,0 +1,98 @@
+package it.dibis.qrcodemaker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCodeBuffer.java
+ * @version 1.0 (19-10-2026)
+ * @description: growable image file buffer, also writable by ImageIO without a cache stream (reused for every image)
+ */
+class QRCodeBuffer extends ByteArrayOutputStream {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCodeBuffer.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    private final Stream stream = new Stream();
+
+    QRCodeBuffer(int size) {
+        super(size);
+    }
+
+    /**
+     * Empty the buffer and return it as an image stream (the PNG writer seeks back to write the chunk lengths)
+     *
+     * @return the stream, valid until the next call
+     */
+    ImageOutputStream imageStream() {
+        reset();
+        stream.rewind();
+        return stream;
+    }
+
+    /**
+     * Seekable view of the buffer: the ImageIO writers write straight into 'buf'
+     */
+    private class Stream extends ImageOutputStreamImpl {
+
+        void rewind() {
+            streamPos = 0;
+            flushedPos = 0;
+            bitOffset = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            ensure(1);
+            buf[(int) streamPos++] = (byte) b;
+            count = Math.max(count, (int) streamPos);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            ensure(len);
+            System.arraycopy(b, off, buf, (int) streamPos, len);
+            streamPos += len;
+            count = Math.max(count, (int) streamPos);
+        }
+
+        @Override
+        public int read() throws IOException {
+            bitOffset = 0;
+            if (streamPos >= count) return -1;
+            return buf[(int) streamPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            bitOffset = 0;
+            if (streamPos >= count) return -1;
+            int n = Math.min(len, count - (int) streamPos);
+            System.arraycopy(buf, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The buffer stays usable: nothing to release
+        }
+
+        private void ensure(int len) {
+            long end = streamPos + len;
+            if (end > Integer.MAX_VALUE - 8) throw new OutOfMemoryError("Image too large");
+            if (end > buf.length) buf = Arrays.copyOf(buf, (int) Math.max(end, 2L * buf.length));
+        }
+    }
+}
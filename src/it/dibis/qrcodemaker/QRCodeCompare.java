@@ -0,0 +1,106 @@
+package it.dibis.qrcodemaker;
+
+import java.io.*;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCodeCompare.java
+ * @version 1.0 (19-10-2026)
+ * @description: measures on a corpus (arch file) the gain of the compact (mixed-mode) encoding
+ */
+public class QRCodeCompare {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCodeCompare.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    public static boolean DEBUG = false;
+
+    /**
+     * Encode every line of the arch file with and without compaction and print the totals
+     *
+     * @param dataFile
+     * @param header
+     * @param ecLevel
+     * @throws IOException
+     */
+    public static void compare(String dataFile, String header, ErrorCorrectionLevel ecLevel) throws IOException {
+        QRCodeMake plain = new QRCodeMake();
+        plain.errorCorrection = ecLevel;
+        QRCodeMake compact = new QRCodeMake();
+        compact.errorCorrection = ecLevel;
+        compact.compact = true;
+
+        int lines = 0, errors = 0, smaller = 0;
+        long plainVersions = 0, compactVersions = 0;
+        long plainModules = 0, compactModules = 0;
+
+        // Same lines and names as 'makeFromFileWithManyStrings()'
+        try (QRCodeMake.ArchReader reader = plain.archReader(dataFile, header, "png")) {
+            String[] record;
+            while ((record = reader.next()) != null) {
+
+                try {
+                    int v1 = plain.qrVersion(record[0]);
+                    int v2 = compact.qrVersion(record[0]);
+                    if (DEBUG) System.out.println(record[1] + ": " + v1 + " -> " + v2);
+
+                    ++lines;
+                    if (v2 < v1) ++smaller;
+                    plainVersions += v1;
+                    compactVersions += v2;
+                    plainModules += modules(v1);
+                    compactModules += modules(v2);
+                } catch (WriterException e) {
+                    ++errors;
+                    if (DEBUG) System.out.println(record[1] + ": " + e.getMessage());
+                }
+            }
+        }
+
+        if (lines == 0) {
+            System.out.println("No lines encoded (" + errors + " errors)");
+            return;
+        }
+
+        System.out.println("Lines: " + lines + " (errors: " + errors + "), EC level: " + ecLevel);
+        System.out.printf("Average version: %.2f -> %.2f (%d smaller symbols)%n",
+                (double) plainVersions / lines, (double) compactVersions / lines, smaller);
+        System.out.printf("Modules: %d -> %d (%.1f%%)%n", plainModules, compactModules,
+                100.0 * (compactModules - plainModules) / plainModules);
+    }
+
+    /**
+     * Number of modules of a symbol (without quiet zone)
+     *
+     * @param version
+     * @return
+     */
+    static int modules(int version) {
+        int side = 17 + 4 * version;
+        return side * side;
+    }
+
+    /**
+     * Usage: QRCodeCompare dataFile [header] [L|M|Q|H]
+     *
+     * @param args
+     */
+    public static void main(String args[]) {
+        if (args.length < 1) {
+            System.out.println("Usage: QRCodeCompare dataFile [header] [L|M|Q|H]");
+            System.exit(1);
+        }
+
+        String header = args.length > 1 ? args[1] : "";
+        ErrorCorrectionLevel ecLevel = args.length > 2 ? ErrorCorrectionLevel.valueOf(args[2].toUpperCase()) : ErrorCorrectionLevel.L;
+        try {
+            compare(args[0], header, ecLevel);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package it.dibis.qrcodemaker;
+
+import java.io.*;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCodeEstimate.java
+ * @version 1.0 (19-10-2026)
+ * @description: dry run of an arch file: rejects, version histogram, disk and time cost, without rendering every line
+ */
+public class QRCodeEstimate {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCodeEstimate.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    public static boolean DEBUG = false;
+
+    private final int MAX_REJECTS_SHOWN = 20;
+    private final long WARMUP_MS = 2000; // Renders of all the samples before timing (JIT compilation)
+    private final long BATCH_MS = 20;    // Time of a batch of renders of a sample
+    private final int SAMPLE_BATCHES = 5; // The fastest one counts (GC and late JIT compilations excluded)
+
+    private final QRCodeMake qrcode;
+
+    private int lines = 0;
+    private int rejects = 0;
+    private long bytes = 0; // UTF-8 bytes of the texts
+    private final int[] histogram = new int[QRCapacity.MAX_VERSION + 1];
+    private final String[] samples = new String[QRCapacity.MAX_VERSION + 1]; // First text of each version
+
+    /**
+     * @param qrcode encoder options (error correction, compact)
+     */
+    public QRCodeEstimate(QRCodeMake qrcode) {
+        this.qrcode = qrcode;
+    }
+
+    /**
+     * Scan the arch file and print the report
+     *
+     * @param dataFile
+     * @param header
+     * @param imgType
+     * @param size
+     * @throws IOException
+     */
+    public void estimate(String dataFile, String header, String imgType, int size) throws IOException {
+        long time = System.currentTimeMillis();
+        ErrorCorrectionLevel ecLevel = qrcode.ecLevel();
+
+        // Same lines and names as 'makeFromFileWithManyStrings()'
+        try (QRCodeMake.ArchReader reader = qrcode.archReader(dataFile, header, imgType)) {
+            String[] record;
+            while ((record = reader.next()) != null) {
+                ++lines;
+
+                String text = record[0];
+                int mode = QRCapacity.chooseMode(text);
+                int count = QRCapacity.charCount(text, mode);
+                int version = QRCapacity.version(count, mode, ecLevel);
+
+                String reason = null;
+                if (!QRCapacity.fits(text, ecLevel, qrcode.compact)) {
+                    reason = "too large (" + count + (mode == QRCapacity.BYTE ? " bytes" : " chars") +
+                            ", max " + QRCapacity.maxCount(mode, QRCapacity.MAX_VERSION, ecLevel) + ")";
+                } else if (version == 0) {
+                    version = QRCapacity.MAX_VERSION; // Only the compact encoding can fit it
+                }
+
+                if (reason != null) {
+                    if (rejects++ < MAX_REJECTS_SHOWN) {
+                        System.out.println("Line " + reader.lineNumber + " (" + record[1] + "): " + reason);
+                    }
+                    continue;
+                }
+
+                if (mode == QRCapacity.BYTE) bytes += count;
+                else bytes += text.length();
+                ++histogram[version];
+                if (samples[version] == null) samples[version] = text;
+            }
+        }
+
+        long scanTime = System.currentTimeMillis() - time;
+        report(imgType, size, scanTime);
+    }
+
+    private void report(String imgType, int size, long scanTime) {
+        int encoded = lines - rejects;
+        System.out.println("Lines: " + lines + ", rejects: " + rejects + ", scan: " + scanTime + " ms" +
+                (qrcode.compact ? " (compact mode: versions are upper bounds)" : ""));
+        System.out.println("Text bytes: " + bytes + ", EC level: " + qrcode.ecLevel());
+
+        // Cost of each version, measured on its first text after the warm-up
+        warmUp(imgType, size);
+        double diskBytes = 0;
+        double nanos = 0;
+        System.out.println("Version  Lines      Side(px)  Bytes/img  ms/img");
+        for (int v = 1; v <= QRCapacity.MAX_VERSION; v++) {
+            if (histogram[v] == 0) continue;
+
+            long[] cost = sample(samples[v], imgType, size);
+            diskBytes += (double) cost[0] * histogram[v];
+            nanos += (double) cost[1] * histogram[v];
+
+            int side = Math.max(size, 17 + 4 * v + 2 * qrcode.style.quietZone);
+            System.out.printf("%7d  %-9d  %-8d  %-9d  %.3f%n", v, histogram[v], side, cost[0], cost[1] / 1e6);
+        }
+
+        if (encoded > 0) {
+            System.out.printf("Estimated disk: %.1f MB, estimated time: %.1f s (one thread, without I/O)%n",
+                    diskBytes / (1024.0 * 1024.0), nanos / 1e9);
+        }
+    }
+
+    /**
+     * Render the samples in turn for WARMUP_MS: a cold JVM would time the interpreter, not the batch
+     *
+     * @param imgType
+     * @param size
+     */
+    private void warmUp(String imgType, int size) {
+        long end = System.nanoTime() + WARMUP_MS * 1000000;
+        int renders = 0;
+        while (System.nanoTime() < end) {
+            boolean any = false;
+            for (String text : samples) {
+                if (text == null) continue;
+                any = true;
+                try {
+                    qrcode.renderImage(text, imgType, size);
+                } catch (WriterException | IOException e) {
+                    if (DEBUG) e.printStackTrace();
+                }
+                ++renders;
+            }
+            if (!any) return;
+        }
+        if (DEBUG) System.out.println("Warm-up: " + renders + " renders");
+    }
+
+    /**
+     * Size and time of the image of a text: mean time of the fastest of SAMPLE_BATCHES batches of renders
+     *
+     * @param text
+     * @param imgType
+     * @param size
+     * @return {bytes, nanoseconds}
+     */
+    private long[] sample(String text, String imgType, int size) {
+        long length = 0;
+        long best = Long.MAX_VALUE;
+        try {
+            for (int b = 0; b < SAMPLE_BATCHES; b++) {
+                int runs = 0;
+                long start = System.nanoTime();
+                long elapsed;
+                do {
+                    length = qrcode.renderImage(text, imgType, size).size();
+                    ++runs;
+                    elapsed = System.nanoTime() - start;
+                } while (elapsed < BATCH_MS * 1000000);
+                best = Math.min(best, elapsed / runs);
+            }
+        } catch (WriterException | IOException e) {
+            if (DEBUG) e.printStackTrace();
+            return new long[]{0, 0};
+        }
+
+        return new long[]{length, best};
+    }
+
+    /**
+     * Usage: QRCodeEstimate dataFile [-h header] [-t imgType] [-d size] [-c] [-e L|M|Q|H] [-l logo] [-fg RRGGBB] [-bg RRGGBB] [-q quietZone]
+     *
+     * @param args
+     */
+    public static void main(String args[]) {
+        if (args.length < 1) {
+            System.out.println("Usage: QRCodeEstimate dataFile [-h header] [-t imgType] [-d size] [-c] [-e L|M|Q|H] [-l logo] [-fg RRGGBB] [-bg RRGGBB] [-q quietZone]");
+            System.exit(1);
+        }
+
+        String header = "", imgType = "png";
+        int size = 300;
+        String logo = null;
+        int onColor = QRCodeStyle.BLACK, offColor = QRCodeStyle.WHITE, quietZone = QRCodeRenderer.QUIET_ZONE;
+        QRCodeMake qrcode = new QRCodeMake();
+
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-c")) {
+                qrcode.compact = true;
+                continue;
+            }
+            if (++i == args.length) break;
+            String value = args[i];
+            switch (option) {
+                case "-h": header = value; break;
+                case "-t": imgType = value; break;
+                case "-d": size = Integer.parseInt(value); break;
+                case "-e": qrcode.errorCorrection = ErrorCorrectionLevel.valueOf(value.toUpperCase()); break;
+                case "-l": logo = value; break;
+                case "-fg": onColor = QRCodeStyle.parseColor(value); break;
+                case "-bg": offColor = QRCodeStyle.parseColor(value); break;
+                case "-q": quietZone = Integer.parseInt(value); break;
+                default: break;
+            }
+        }
+        // Same style as the batch: a logo sets the EC level to H, the quiet zone changes the side
+        qrcode.style = new QRCodeStyle(onColor, offColor, quietZone, logo);
+
+        try {
+            new QRCodeEstimate(qrcode).estimate(args[0], header, imgType, size);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package it.dibis.qrcodemaker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCodeFileWriter.java
+ * @version 1.0 (19-10-2026)
+ * @description: writes the rendered images in batches on a small I/O pool, so the encoding doesn't wait for the disk
+ */
+class QRCodeFileWriter {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCodeFileWriter.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    public static boolean DEBUG = false;
+
+    // Durability. With SYNC_BATCH and SYNC_FILE the folders of the batch are also synced at its end,
+    // so the new files keep their names after a crash (not on Windows, where a folder can't be opened)
+    public static final int SYNC_NONE = 0;  // Left to the OS (same as before)
+    public static final int SYNC_BATCH = 1; // fsync of every file at the end of each batch
+    public static final int SYNC_FILE = 2;  // fsync of every file before the next one
+
+    private final int BATCH_FILES = 64;               // Max files per batch
+    private final int BATCH_BYTES = 4 * 1024 * 1024;  // Max bytes per batch
+    private final int MAX_PENDING = 8;                // Batches queued before the encoder waits
+
+    private final int sync;
+    private final ThreadPoolExecutor pool;
+
+    // The batches and their buffers are reused: no copy of each image is allocated
+    private final ConcurrentLinkedQueue<Batch> free = new ConcurrentLinkedQueue<Batch>();
+    private Batch current = null;
+    private final BatchStream batchStream = new BatchStream();
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final long startTime = System.currentTimeMillis();
+    private long elapsed = -1;
+
+    /**
+     * Files of a batch: their contents one after the other in a single buffer
+     */
+    private class Batch {
+        final String[] pathnames = new String[BATCH_FILES];
+        final int[] ends = new int[BATCH_FILES];
+        final boolean[] written = new boolean[BATCH_FILES];
+        int files = 0;
+        byte[] data = new byte[256 * 1024];
+        int bytes = 0;
+
+        void clear() {
+            Arrays.fill(pathnames, 0, files, null);
+            files = 0;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Appends to the data of the current batch (the image buffer writes into it with a single copy)
+     */
+    private class BatchStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (current.bytes + len > current.data.length) {
+                current.data = Arrays.copyOf(current.data, Math.max(current.bytes + len, 2 * current.data.length));
+            }
+            System.arraycopy(b, off, current.data, current.bytes, len);
+            current.bytes += len;
+        }
+    }
+
+    /**
+     * @param threads I/O threads
+     * @param sync    = {SYNC_NONE | SYNC_BATCH | SYNC_FILE}
+     */
+    QRCodeFileWriter(int threads, int sync) {
+        this.sync = sync;
+        // When the queue is full the encoding thread writes the batch itself (back pressure)
+        this.pool = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Queue an image file (the data is copied into the batch: the buffer can be reused right away)
+     *
+     * @param pathname
+     * @param data
+     */
+    void write(String pathname, ByteArrayOutputStream data) {
+        if (current == null) {
+            current = free.poll();
+            if (current == null) current = new Batch();
+        }
+
+        try {
+            data.writeTo(batchStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown: both are in memory
+        }
+        current.pathnames[current.files] = pathname;
+        current.ends[current.files++] = current.bytes;
+        if (current.files >= BATCH_FILES || current.bytes >= BATCH_BYTES) flush();
+    }
+
+    /**
+     * Submit the current batch
+     */
+    void flush() {
+        if (current == null || current.files == 0) return;
+
+        final Batch full = current;
+        current = null;
+        pool.execute(() -> {
+            try {
+                writeBatch(full);
+            } finally {
+                full.clear();
+                free.add(full);
+            }
+        });
+    }
+
+    /**
+     * Write the pending images and wait for the I/O threads
+     *
+     * @return number of files not written
+     */
+    int close() {
+        flush();
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        elapsed = System.currentTimeMillis() - startTime;
+
+        return errors.get();
+    }
+
+    /**
+     * Aggregate throughput (up to now, or up to close())
+     *
+     * @return
+     */
+    String getThroughput() {
+        long ms = Math.max(1, elapsed >= 0 ? elapsed : System.currentTimeMillis() - startTime);
+        double mb = bytes.get() / (1024.0 * 1024.0);
+        return String.format("%d files, %.1f MB in %.1f s (%.0f files/s, %.1f MB/s)%s",
+                files.get(), mb, ms / 1000.0, files.get() * 1000.0 / ms, mb * 1000.0 / ms,
+                errors.get() > 0 ? ", errors: " + errors.get() : "");
+    }
+
+    private void writeBatch(Batch batch) {
+        for (int i = 0; i < batch.files; i++) {
+            int start = i == 0 ? 0 : batch.ends[i - 1];
+            int length = batch.ends[i] - start;
+            batch.written[i] = false;
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(Paths.get(batch.pathnames[i]), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                ByteBuffer buffer = ByteBuffer.wrap(batch.data, start, length);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                if (sync == SYNC_FILE) channel.force(true);
+                channel.close();
+
+                batch.written[i] = true;
+                files.incrementAndGet();
+                bytes.addAndGet(length);
+                if (DEBUG) System.out.println("QRCode Image: " + batch.pathnames[i]);
+            } catch (IOException e) {
+                e.printStackTrace();
+                errors.incrementAndGet();
+                closeQuietly(channel);
+            }
+        }
+
+        // SYNC_BATCH: the files are reopened one at a time for the fsync (it syncs the file, whatever
+        // the descriptor), so a thread never holds more than one of them open
+        if (sync == SYNC_BATCH) {
+            for (int i = 0; i < batch.files; i++) {
+                if (!batch.written[i]) continue;
+                FileChannel channel = null;
+                try {
+                    channel = FileChannel.open(Paths.get(batch.pathnames[i]), StandardOpenOption.WRITE);
+                    channel.force(true);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        if (sync != SYNC_NONE) forceFolders(batch);
+    }
+
+    /**
+     * fsync of the folders of the batch: a new file is durable only when its folder entry is
+     */
+    private void forceFolders(Batch batch) {
+        HashSet<Path> folders = new HashSet<Path>();
+        for (int i = 0; i < batch.files; i++) {
+            Path folder = Paths.get(batch.pathnames[i]).toAbsolutePath().getParent();
+            if (folder != null) folders.add(folder);
+        }
+
+        for (Path folder : folders) {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(folder, StandardOpenOption.READ);
+            } catch (IOException e) {
+                if (DEBUG) System.out.println("Folder not synced: " + folder + " (" + e + ")");
+                return; // Folders can't be opened on this OS (Windows)
+            }
+            try {
+                channel.force(true);
+            } catch (IOException e) {
+                e.printStackTrace();
+                errors.incrementAndGet();
+            } finally {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -476,8 +476,10 @@ public class QRCodeGUI implements ActionListener, Languages {
         } else if (mode == ARCH_FILE_INX && !checkPathname(folder)) {
             setMessage(ERR_FILE1[language] + folder + ERR_FILE2[language], ERR_COLOR);
             return;
-        } else if (textCode.length() > 4296) { // ERR_TEXT_LEN
-            setMessage(ERR_TEXT_LEN[language], ERR_COLOR);
+        } else if (mode == STRING_INX && qrcode.checkText(textCode) != 0) { // ERR_TEXT_LEN
+            boolean bytes = QRCapacity.chooseMode(textCode) == QRCapacity.BYTE;
+            setMessage(ERR_TEXT_LEN[language] + qrcode.maxTextLength(textCode) +
+                    (bytes ? TEXT_LEN_BYTES[language] : TEXT_LEN_CHARS[language]), ERR_COLOR);
             return;
         } else {
             setMessage("", MSG_COLOR); // Clear message area
@@ -511,6 +513,8 @@ public class QRCodeGUI implements ActionListener, Languages {
             setMessage(ERR_WRITE[language], ERR_COLOR);
         } else if (error == qrcode.ERR_IO) {
             setMessage(ERR_IO[language], ERR_COLOR);
+        } else if (error == qrcode.ERR_TEXT_LEN) { // Text file: the limit depends on its content, printed by QRCodeMake
+            setMessage(ERR_TEXT_FILE_LEN[language], ERR_COLOR);
         } else if (error == qrcode.ERR_ENCODING) {
             setMessage(ERR_ENCODING[language], ERR_COLOR);
         } else {
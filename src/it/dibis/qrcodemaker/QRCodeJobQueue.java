@@ -0,0 +1,552 @@
+package it.dibis.qrcodemaker;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCodeJobQueue.java
+ * @version 1.0 (19-10-2026)
+ * @description: file-backed job queue: many arch files run together on a shared pool with fair-share scheduling
+ */
+public class QRCodeJobQueue {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCodeJobQueue.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    public static boolean DEBUG = false;
+
+    // Job status
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    private final String JOB_EXT = ".job";
+    private final int CHUNK = 64;          // Lines handed to a worker at a time
+    private final long STRIDE = 1 << 20;   // Stride scheduling: pass += STRIDE / priority
+    private final long POLL_MS = 1000;     // New job files written by 'submit' from another process
+
+    private final Path queueDir;
+    private final int threads;
+    private final QRCodeMake qrcode = new QRCodeMake();
+
+    // Guarded by 'this': only the scheduling state. The arch files and the job files are read and
+    // written out of the lock, so a worker never waits for the I/O of another one
+    private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<String, Job>();
+    private final ArrayList<Thread> workers = new ArrayList<Thread>();
+    private volatile boolean running = false;
+
+    /**
+     * A job: its file in the queue folder holds parameters and progress
+     */
+    static class Job {
+        String id;
+        Properties props = new Properties();
+
+        String dataFile, folder, header, imgType;
+        int size;
+        int priority;
+        String status;
+
+        QRCodeMake.ArchReader reader = null; // Counts the lines and names the unnamed ones
+        boolean reading = false; // A worker is reading the next chunk
+        long nextLine = 0;   // Next line to hand out
+        long committed = 0;  // Lines done, all of them (restart point)
+        final TreeSet<Long> inFlight = new TreeSet<Long>();
+        long pass = 0;
+
+        long images = 0;
+        long errors = 0;
+        long startTime = 0;
+        long runTime = 0;    // Of the previous runs (before a restart)
+
+        long saveSeq = 0;    // Last state taken for the job file
+        long savedSeq = 0;   // Last state written (guarded by 'fileLock')
+        final Object fileLock = new Object();
+    }
+
+    /**
+     * Lines of a job handed to a worker
+     */
+    static class Chunk {
+        Job job;
+        long start;
+        ArrayList<String[]> records = new ArrayList<String[]>();
+    }
+
+    /**
+     * @param queueDir folder of the job files
+     * @param threads  shared workers
+     */
+    public QRCodeJobQueue(String queueDir, int threads) {
+        this.queueDir = Paths.get(queueDir);
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Load the unfinished jobs (they restart from their last committed line) and start the workers
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        qrcode.makeFolder(queueDir.toString());
+        running = true;
+        scanQueue();
+
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "qrcode-worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        Thread poller = new Thread(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(POLL_MS);
+                    scanQueue();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace(); // The poller goes on: the next job files are still picked up
+                }
+            }
+        }, "qrcode-queue-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /**
+     * Stop the workers after their current chunk (the jobs resume at the next start)
+     */
+    public void shutdown() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            for (Job job : jobs.values()) {
+                if (job.reader != null) save(job);
+            }
+        }
+    }
+
+    /**
+     * Add a job to the queue (also usable while the queue runs in another process)
+     *
+     * @param queueDir
+     * @param dataFile
+     * @param folder
+     * @param header
+     * @param imgType
+     * @param size
+     * @param priority 1 (low) .. 10 (high)
+     * @return the job id
+     * @throws IOException
+     */
+    public static String submit(String queueDir, String dataFile, String folder, String header,
+                                String imgType, int size, int priority) throws IOException {
+        Files.createDirectories(Paths.get(queueDir));
+        Properties props = new Properties();
+        props.setProperty("dataFile", new File(dataFile).getAbsolutePath());
+        props.setProperty("folder", new File(folder).getAbsolutePath());
+        props.setProperty("header", header);
+        props.setProperty("imgType", imgType);
+        props.setProperty("size", String.valueOf(size));
+        props.setProperty("priority", String.valueOf(priority(priority)));
+        props.setProperty("status", QUEUED);
+        props.setProperty("committed", "0");
+
+        String id;
+        Path path;
+        do {
+            id = System.currentTimeMillis() + "-" + (int) (Math.random() * 10000);
+            path = Paths.get(queueDir, id + ".job");
+        } while (Files.exists(path));
+        store(props, path);
+
+        return id;
+    }
+
+    /**
+     * Priority in 1..10 (a zero priority would stop the stride scheduling)
+     */
+    private static int priority(int priority) {
+        return Math.max(1, Math.min(10, priority));
+    }
+
+    /**
+     * Status and throughput of every job
+     *
+     * @return
+     */
+    public synchronized String status() {
+        StringBuilder sb = new StringBuilder();
+        for (Job job : jobs.values()) sb.append(statusLine(job)).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Status of the jobs as saved in the queue folder (for a queue running in another process)
+     *
+     * @param queueDir
+     * @return
+     * @throws IOException
+     */
+    public static String status(String queueDir) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(queueDir), "*.job")) {
+            for (Path path : stream) {
+                Properties props = load(path);
+                long images = Long.parseLong(props.getProperty("images", "0"));
+                long ms = Long.parseLong(props.getProperty("runTime", "0"));
+                sb.append(String.format("%s %-7s prio %s, lines %s, images %d, errors %s, %.0f img/s%n",
+                        path.getFileName().toString().replace(".job", ""), props.getProperty("status"),
+                        props.getProperty("priority"), props.getProperty("committed"), images,
+                        props.getProperty("errors", "0"), ms > 0 ? images * 1000.0 / ms : 0.0));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private String statusLine(Job job) {
+        long ms = runTime(job);
+        return String.format("%s %-7s prio %d, lines %d, images %d, errors %d, %.0f img/s",
+                job.id, job.status, job.priority, job.committed, job.images, job.errors,
+                ms > 0 ? job.images * 1000.0 / ms : 0.0);
+    }
+
+    private long runTime(Job job) {
+        return job.runTime + (job.startTime > 0 ? System.currentTimeMillis() - job.startTime : 0);
+    }
+
+    //------ Scheduling ------//
+
+    private void work() {
+        while (running) {
+            Chunk chunk;
+            try {
+                chunk = nextChunk();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (chunk == null) continue;
+
+            read(chunk);
+            int errors = 0;
+            for (String[] record : chunk.records) {
+                if (qrcode.saveQRImage(record[0], chunk.job.imgType, chunk.job.size,
+                        chunk.job.folder + "/" + record[1]) != 0) {
+                    ++errors;
+                }
+            }
+            finish(chunk, errors);
+        }
+    }
+
+    /**
+     * Next chunk of the job with the smallest pass (stride scheduling): every job gets a share
+     * of the workers proportional to its priority, whatever its length.
+     * Its lines are read by the caller with 'read()', out of the lock.
+     *
+     * @return null if there is nothing to do
+     * @throws InterruptedException
+     */
+    private synchronized Chunk nextChunk() throws InterruptedException {
+        Job next = null;
+        for (Job job : jobs.values()) {
+            if (job.reader != null && !job.reading && (next == null || job.pass < next.pass)) next = job;
+        }
+        if (next == null) {
+            wait(POLL_MS);
+            return null;
+        }
+
+        Chunk chunk = new Chunk();
+        chunk.job = next;
+        chunk.start = next.nextLine;
+        next.reading = true; // Only this worker uses the reader until 'read()' ends
+        next.pass += STRIDE / next.priority;
+        next.inFlight.add(chunk.start);
+        return chunk;
+    }
+
+    /**
+     * Read the lines of the chunk (out of the lock: the other workers go on with the other jobs)
+     *
+     * @param chunk
+     */
+    private void read(Chunk chunk) {
+        Job job = chunk.job;
+        QRCodeMake.ArchReader reader = job.reader;
+        boolean end;
+        boolean failed = false;
+        try {
+            String[] record;
+            while (chunk.records.size() < CHUNK && (record = reader.next()) != null) {
+                chunk.records.add(record);
+            }
+            end = chunk.records.size() < CHUNK;
+        } catch (IOException e) {
+            e.printStackTrace();
+            end = true;
+            failed = true;
+        }
+        if (end) closeQuietly(reader);
+
+        synchronized (this) {
+            job.nextLine = reader.lineNumber;
+            job.reading = false;
+            if (end) job.reader = null;
+            if (failed) job.status = FAILED;
+            notifyAll(); // The job can be scheduled again
+        }
+    }
+
+    private void finish(Chunk chunk, int errors) {
+        Job job = chunk.job;
+        Properties props;
+        long seq;
+        synchronized (this) {
+            job.inFlight.remove(chunk.start);
+            job.images += chunk.records.size() - errors;
+            job.errors += errors;
+            job.committed = job.inFlight.isEmpty() ? job.nextLine : job.inFlight.first();
+
+            if (job.reader == null && job.inFlight.isEmpty()) {
+                if (!FAILED.equals(job.status)) job.status = DONE;
+                job.runTime = runTime(job);
+                job.startTime = 0;
+                System.out.println(statusLine(job));
+            }
+            props = snapshot(job);
+            seq = ++job.saveSeq;
+        }
+        store(job, props, seq);
+    }
+
+    //------ Job files ------//
+
+    /**
+     * Load the job files not yet known (the arch files are opened out of the lock).
+     * A file that can't be read is retried at the next scan, one with bad values fails alone.
+     *
+     * @throws IOException
+     */
+    private void scanQueue() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(queueDir, "*" + JOB_EXT)) {
+            for (Path path : stream) {
+                String id = path.getFileName().toString();
+                id = id.substring(0, id.length() - JOB_EXT.length());
+                synchronized (this) {
+                    if (jobs.containsKey(id)) continue;
+                }
+
+                Properties props;
+                try {
+                    props = load(path);
+                } catch (IOException e) {
+                    e.printStackTrace(); // Retried at the next scan
+                    continue;
+                }
+
+                Job job = loadJob(id, props);
+                synchronized (this) {
+                    // A new job starts with the smallest pass: it doesn't wait for the others, nor gets a burst
+                    long minPass = Long.MAX_VALUE;
+                    for (Job other : jobs.values()) {
+                        if (other.reader != null) minPass = Math.min(minPass, other.pass);
+                    }
+                    job.pass = minPass == Long.MAX_VALUE ? 0 : minPass;
+                    jobs.put(id, job);
+                    notifyAll();
+                }
+                save(job);
+            }
+        }
+    }
+
+    /**
+     * Job from its file: unless finished, the arch file is opened at the restart point.
+     * A job file written by hand may hold anything: a bad number makes the job FAILED.
+     *
+     * @param id
+     * @param props
+     * @return
+     */
+    private Job loadJob(String id, Properties props) {
+        Job job = new Job();
+        job.id = id;
+        job.props = props;
+        job.dataFile = props.getProperty("dataFile");
+        job.folder = props.getProperty("folder");
+        job.header = props.getProperty("header", "");
+        job.imgType = props.getProperty("imgType", "png");
+        job.status = props.getProperty("status", QUEUED);
+        job.priority = 1;
+        try {
+            job.size = Integer.parseInt(props.getProperty("size", "300").trim());
+            job.priority = priority(Integer.parseInt(props.getProperty("priority", "5").trim()));
+            job.committed = Long.parseLong(props.getProperty("committed", "0").trim());
+            job.images = Long.parseLong(props.getProperty("images", "0").trim());
+            job.errors = Long.parseLong(props.getProperty("errors", "0").trim());
+            job.runTime = Long.parseLong(props.getProperty("runTime", "0").trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Bad job file " + id + JOB_EXT + ": " + e.getMessage());
+            job.status = FAILED;
+        }
+        if (!DONE.equals(job.status) && (job.dataFile == null || job.folder == null || job.size <= 0 || job.committed < 0)) {
+            if (!FAILED.equals(job.status)) System.out.println("Bad job file " + id + JOB_EXT);
+            job.status = FAILED;
+        }
+
+        if (DONE.equals(job.status) || FAILED.equals(job.status)) return job;
+
+        try {
+            qrcode.makeFolder(job.folder);
+            job.reader = qrcode.archReader(job.dataFile, job.header, job.imgType);
+            job.nextLine = job.reader.skip(job.committed); // Restart: the lines already done
+            job.status = RUNNING;
+            job.startTime = System.currentTimeMillis();
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(job.reader);
+            job.reader = null;
+            job.status = FAILED;
+        }
+
+        return job;
+    }
+
+    private void closeQuietly(QRCodeMake.ArchReader reader) {
+        if (reader == null) return;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void save(Job job) {
+        Properties props;
+        long seq;
+        synchronized (this) {
+            props = snapshot(job);
+            seq = ++job.saveSeq;
+        }
+        store(job, props, seq);
+    }
+
+    /**
+     * Copy of the job state for its file (under the lock)
+     */
+    private Properties snapshot(Job job) {
+        job.props.setProperty("status", job.status);
+        job.props.setProperty("priority", String.valueOf(job.priority));
+        job.props.setProperty("committed", String.valueOf(job.committed));
+        job.props.setProperty("images", String.valueOf(job.images));
+        job.props.setProperty("errors", String.valueOf(job.errors));
+        job.props.setProperty("runTime", String.valueOf(runTime(job)));
+        return (Properties) job.props.clone();
+    }
+
+    /**
+     * Write a job state (out of the lock): one writer per job, and an older state never
+     * replaces a newer one
+     */
+    private void store(Job job, Properties props, long seq) {
+        synchronized (job.fileLock) {
+            if (seq < job.savedSeq) return;
+            job.savedSeq = seq;
+            try {
+                store(props, queueDir.resolve(job.id + JOB_EXT));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write the job file atomically: a crash leaves the old or the new version
+     */
+    private static void store(Properties props, Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            props.store(out, "QRCodeMaker job");
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Properties load(Path path) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            props.load(in);
+        }
+
+        return props;
+    }
+
+    /**
+     * Usage:
+     * QRCodeJobQueue -q queueDir run [-n threads]
+     * QRCodeJobQueue -q queueDir submit dataFile folder [-h header] [-t imgType] [-d size] [-p priority]
+     * QRCodeJobQueue -q queueDir status
+     *
+     * @param args
+     */
+    public static void main(String args[]) {
+        if (args.length < 3 || !args[0].equals("-q")) {
+            System.out.println("Usage: QRCodeJobQueue -q queueDir run [-n threads]\n" +
+                    "       QRCodeJobQueue -q queueDir submit dataFile folder " +
+                    "[-h header] [-t imgType] [-d size] [-p priority]\n" +
+                    "       QRCodeJobQueue -q queueDir status");
+            System.exit(1);
+        }
+
+        String queueDir = args[1];
+        String command = args[2];
+        String header = "", imgType = "png";
+        int size = 300, priority = 5;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        int first = command.equals("submit") ? 5 : 3;
+        for (int i = first; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-h": header = value; break;
+                case "-t": imgType = value; break;
+                case "-d": size = Integer.parseInt(value); break;
+                case "-p": priority = Integer.parseInt(value); break;
+                case "-n": threads = Integer.parseInt(value); break;
+                default: break;
+            }
+        }
+
+        try {
+            if (command.equals("run")) {
+                QRCodeJobQueue queue = new QRCodeJobQueue(queueDir, threads);
+                Runtime.getRuntime().addShutdownHook(new Thread(queue::shutdown));
+                queue.start();
+            } else if (command.equals("submit") && args.length >= 5) {
+                System.out.println(submit(queueDir, args[3], args[4], header, imgType, size, priority));
+            } else if (command.equals("status")) {
+                System.out.print(status(queueDir));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
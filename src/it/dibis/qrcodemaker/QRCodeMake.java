@@ -1,11 +1,13 @@
 package it.dibis.qrcodemaker;
 
+import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.Hashtable;
 import com.google.zxing.*;
-import com.google.zxing.Writer;
-import com.google.zxing.client.j2se.MatrixToImageWriter;
-import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.QRCode;
 
 /**
  * @package: QRCodeMaker
@@ -24,12 +26,30 @@ public class QRCodeMake {
 
     public final String SEPARATOR = "|"; // Only for 'makeFromFileWithManyStrings()'
 
+    public final String SVG = "svg"; // Vector output, written without ImageIO
+
     public final int ERR_FILE_NOT_FOUND = 1;
     public final int ERR_WRITE_FILE = 2;
     public final int ERR_IO = 3;
     public final int ERR_TEXT_LEN = 4;
     public final int ERR_ENCODING = 5;
 
+    // Encoder options
+    public boolean compact = false; // Cheapest mix of numeric, alphanumeric, byte and Kanji segments
+    public ErrorCorrectionLevel errorCorrection = ErrorCorrectionLevel.L; // ZXing default
+
+    // Colours, quiet zone and logo of the images
+    public QRCodeStyle style = QRCodeStyle.PLAIN;
+
+    // Image and output buffers, one renderer per thread
+    private final ThreadLocal<QRCodeRenderer> renderers = ThreadLocal.withInitial(QRCodeRenderer::new);
+
+    private volatile Hashtable<EncodeHintType, Object> hints = null; // Built from the encoder options
+
+    // Image files of 'makeFromFileWithManyStrings()'
+    public int ioThreads = 2;
+    public int sync = QRCodeFileWriter.SYNC_NONE; // {SYNC_NONE | SYNC_BATCH | SYNC_FILE}
+
     /**
      * The file contains the text to be converted into qrcode
      *
@@ -57,7 +77,8 @@ public class QRCodeMake {
             if (DEBUG) System.out.println(text);
 
             // Make QRCode
-            saveQRImage(text, imgType, size, checkExt(outputPathname, imgType));
+            error = saveQRImage(text, imgType, size, checkExt(outputPathname, imgType));
+            if (error == ERR_TEXT_LEN) System.out.println("Text too long for a QR code: " + textLength(text));
         } catch (FileNotFoundException e) {
             System.out.println("FileNotFound error!");
             e.printStackTrace();
@@ -81,77 +102,370 @@ public class QRCodeMake {
      * @return
      */
     public int makeFromFileWithManyStrings(String dataFile, String folder, String header, String imgType, int size) {
+        return makeFromFileWithManyStrings(dataFile, folder, header, new String[]{imgType}, new int[]{size});
+    }
+
+    /**
+     * Same as above, with many renditions (type, size) of every qrcode: each text is encoded once
+     *
+     * @param dataFile
+     * @param folder
+     * @param header
+     * @param imgTypes = {JPG | GIF | PNG | BMP | SVG}
+     * @param sizes    one for each type
+     * @return
+     * @throws IllegalArgumentException if the renditions are not valid (see 'checkRenditions()')
+     */
+    public int makeFromFileWithManyStrings(String dataFile, String folder, String header, String[] imgTypes, int[] sizes) {
+        return makeFromFileWithManyStrings(dataFile, folder, header, imgTypes, sizes, newFileWriter());
+    }
+
+    /**
+     * Same as above, through a writer of the caller (closed at the end): its throughput is the one of
+     * this file, also when many files are converted at the same time
+     *
+     * @param dataFile
+     * @param folder
+     * @param header
+     * @param imgTypes
+     * @param sizes
+     * @param writer   from 'newFileWriter()'
+     * @return
+     */
+    int makeFromFileWithManyStrings(String dataFile, String folder, String header, String[] imgTypes, int[] sizes,
+                                    QRCodeFileWriter writer) {
+        checkRenditions(imgTypes, sizes);
+
         int error = 0;
-        int pnt;
+        int failed = 0; // Renditions not rendered (e.g. unknown type): the other ones go on
 
         makeFolder(folder); // Check and make if outputPath exist
 
-        // Load every line in binary mode (read lines with accent mark)
-        try {
-            RandomAccessFile file = new RandomAccessFile(dataFile, "r");
-            int index = 0;
-            String text = null;
-            String line = null;
-            String filename = null;
-            while ((line = file.readLine()) != null) {
-                if (DEBUG) System.out.println(line);
-                if (line != null && line.length() > 0) {
-                    pnt = line.lastIndexOf(SEPARATOR);
-                    String s = null;
-                    if (pnt > 0) {
-                        text = header + line.substring(0, pnt).trim();
-                        s = line.substring(pnt + 1).trim();
-                        filename = checkExt(s, imgType);
-                        if (!DEBUG) saveQRImage(text, imgType, size, folder + "/" + filename);
-                    } else if (pnt < 0) {
-                        text = header + line;
-                        s = String.valueOf(index).trim();
-                        ++index;
-                        filename = checkExt(s, imgType);
-                        if (!DEBUG) saveQRImage(text, imgType, size, folder + "/" + filename);
+        // The file is always closed: the daemon mode calls this method for the whole JVM life
+        try (ArchReader reader = archReader(dataFile, header, null)) {
+            String[] record;
+            while ((record = reader.next()) != null) {
+                if (DEBUG) {
+                    System.out.println(reader.line);
+                    continue;
+                }
+                if (checkText(record[0]) != 0) {
+                    System.out.println("Text too long for a QR code: " + record[1] + " (" + textLength(record[0]) + ")");
+                    continue;
+                }
+
+                QRCode code;
+                try {
+                    code = encode(record[0]);
+                } catch (WriterException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+
+                for (int r = 0; r < imgTypes.length; r++) {
+                    String filename = renditionName(record[1], imgTypes, sizes, r);
+                    try {
+                        writer.write(folder + "/" + filename, renderImage(code, imgTypes[r], sizes[r]));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        ++failed;
                     }
                 }
             }
-            file.close();
         } catch (IOException e) {
             e.printStackTrace();
             error = ERR_FILE_NOT_FOUND;
+        } finally {
+            if ((writer.close() > 0 || failed > 0) && error == 0) error = ERR_WRITE_FILE;
         }
 
         return error;
     }
 
+    /**
+     * Writer of the image files: the images are written by the I/O threads while the next lines are encoded
+     *
+     * @return
+     */
+    QRCodeFileWriter newFileWriter() {
+        return new QRCodeFileWriter(ioThreads, sync);
+    }
+
+    /**
+     * Open an arch file
+     *
+     * @param dataFile
+     * @param header
+     * @param imgType  extension added to the filenames (null: filenames as they are)
+     * @return
+     * @throws IOException
+     */
+    ArchReader archReader(String dataFile, String header, String imgType) throws IOException {
+        return new ArchReader(new FileInputStream(dataFile), header, imgType);
+    }
+
+    /**
+     * Lines of an arch file, as {text, filename} records. The lines without filename are named
+     * by their index (0, 1, 2...): the naming rule is only here
+     */
+    class ArchReader implements Closeable {
+
+        private final BufferedReader reader;
+        private final String header;
+        private final String imgType;
+
+        String line = null;    // Last line read
+        long lineNumber = 0;   // Lines read, empty ones included
+        int index = 0;         // Name of the next line without filename
+
+        /**
+         * @param in
+         * @param header
+         * @param imgType extension added to the filenames (null: filenames as they are)
+         */
+        ArchReader(InputStream in, String header, String imgType) {
+            // Load every line in binary mode (read lines with accent mark): ISO-8859-1 maps one byte to one char
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1), 1 << 16);
+            this.header = header;
+            this.imgType = imgType;
+        }
+
+        /**
+         * Next record, the empty lines are skipped
+         *
+         * @return {text, filename} or null at the end of the file
+         * @throws IOException
+         */
+        String[] next() throws IOException {
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                String[] record = splitArchLine(line, header, imgType, index);
+                if (unnamed(line)) ++index;
+                if (record != null) return record;
+            }
+
+            return null;
+        }
+
+        /**
+         * Skip lines (restart), keeping the names of the next ones
+         *
+         * @param lines
+         * @return lines skipped
+         * @throws IOException
+         */
+        long skip(long lines) throws IOException {
+            long skipped = 0;
+            while (skipped < lines && (line = reader.readLine()) != null) {
+                ++lineNumber;
+                ++skipped;
+                if (unnamed(line)) ++index;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private boolean unnamed(String line) {
+        return line.length() > 0 && line.lastIndexOf(SEPARATOR) < 0;
+    }
+
+    /**
+     * Split a line of the arch file into the text to encode and the image filename
+     *
+     * @param line
+     * @param header
+     * @param imgType  extension added to the filename (null: filename as it is)
+     * @param index    filename used when the line has no separator
+     * @return {text, filename} or null if the line must be skipped
+     */
+    private String[] splitArchLine(String line, String header, String imgType, int index) {
+        if (line == null || line.length() == 0) return null;
+
+        QRCodeRenderer renderer = renderers.get();
+        int pnt = line.lastIndexOf(SEPARATOR);
+        if (pnt > 0) {
+            String text = renderer.payload(header, line, pnt, true);
+            String filename = line.substring(pnt + 1).trim();
+            return new String[]{text, imgType == null ? filename : checkExt(filename, imgType)};
+        } else if (pnt < 0) {
+            String text = renderer.payload(header, line, line.length(), false);
+            String filename = String.valueOf(index);
+            return new String[]{text, imgType == null ? filename : checkExt(filename, imgType)};
+        }
+
+        return null; // Empty text
+    }
+
     /**
      * Save the qrcode image file from a string
      *
      * @param text
-     * @param imgType  = {JPG | GIF | PNG | BMP}
+     * @param imgType  = {JPG | GIF | PNG | BMP | SVG}
      * @param size
      * @param pathname
      * @return
      */
     int saveQRImage(String text, String imgType, int size, String pathname) {
-        int error = 0;
-        if (text.length() > 4296) return ERR_TEXT_LEN;
+        if (checkText(text) != 0) return ERR_TEXT_LEN;
 
         File file = new File(pathname);
-        BitMatrix matrix = null;
-        Writer writer = new MultiFormatWriter();
-        try {
-            Hashtable<EncodeHintType, String> hints = new Hashtable<EncodeHintType, String>(2);
-            hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
-            matrix = writer.encode(text, BarcodeFormat.QR_CODE, size, size, hints);
-            MatrixToImageWriter.writeToFile(matrix, imgType, file);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            renderImage(text, imgType, size).writeTo(fos);
             if (DEBUG) System.out.println("QRCode Image: " + file.getAbsolutePath());
         } catch (WriterException | IOException e) {
             e.printStackTrace();
-            error = ERR_WRITE_FILE;
-            return error;
+            return ERR_WRITE_FILE;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Write the qrcode image of a string to a stream (the stream is not closed)
+     *
+     * @param text
+     * @param imgType  = {JPG | GIF | PNG | BMP | SVG}
+     * @param size
+     * @param out
+     * @return
+     */
+    int writeQRImage(String text, String imgType, int size, OutputStream out) {
+        if (checkText(text) != 0) return ERR_TEXT_LEN;
+
+        try {
+            renderImage(text, imgType, size).writeTo(out);
+        } catch (WriterException | IOException e) {
+            e.printStackTrace();
+            return ERR_WRITE_FILE;
         }
 
         return 0;
     }
 
+    /**
+     * Check that the text fits in a QR code with the current options, in one pass and without encoding
+     * (UTF-8 bytes in byte mode, not chars)
+     *
+     * @param text
+     * @return 0 or ERR_TEXT_LEN
+     */
+    int checkText(String text) {
+        return QRCapacity.fits(text, ecLevel(), compact) ? 0 : ERR_TEXT_LEN;
+    }
+
+    /**
+     * Max length of a text like this one: characters (numeric, alphanumeric) or UTF-8 bytes
+     *
+     * @param text
+     * @return
+     */
+    int maxTextLength(String text) {
+        return QRCapacity.maxCount(QRCapacity.chooseMode(text), QRCapacity.MAX_VERSION, ecLevel());
+    }
+
+    /**
+     * Length of the text against its limit, e.g. "3000 UTF-8 bytes in byte mode, max 2953 at EC level L"
+     *
+     * @param text
+     * @return
+     */
+    String textLength(String text) {
+        int mode = QRCapacity.chooseMode(text);
+        return QRCapacity.charCount(text, mode) + (mode == QRCapacity.BYTE ? " UTF-8 bytes" : " chars") +
+                " in " + QRCapacity.MODE_NAMES[mode] + " mode, max " + maxTextLength(text) + " at EC level " + ecLevel();
+    }
+
+    /**
+     * Encode and render the text with the buffers of the current thread
+     *
+     * @param text
+     * @param imgType
+     * @param size
+     * @return the image file content, valid until the next call on the same thread
+     * @throws WriterException
+     * @throws IOException
+     */
+    ByteArrayOutputStream renderImage(String text, String imgType, int size) throws WriterException, IOException {
+        return renderImage(encode(text), imgType, size);
+    }
+
+    /**
+     * Render an encoded qrcode with the buffers of the current thread
+     *
+     * @param code
+     * @param imgType = {JPG | GIF | PNG | BMP | SVG}
+     * @param size
+     * @return the image file content, valid until the next call on the same thread
+     * @throws IOException
+     */
+    ByteArrayOutputStream renderImage(QRCode code, String imgType, int size) throws IOException {
+        QRCodeRenderer renderer = renderers.get();
+        QRCodeStyle style = this.style;
+        if (imgType.equalsIgnoreCase(SVG)) return renderer.encodeSvg(code, size, style);
+
+        BufferedImage image = renderer.render(code, size, style);
+        return renderer.encodeImage(image, imgType);
+    }
+
+    /**
+     * Encode the text (modules only, no rendering)
+     *
+     * @param text
+     * @return
+     * @throws WriterException
+     */
+    QRCode encode(String text) throws WriterException {
+        return Encoder.encode(text, ecLevel(), hints());
+    }
+
+    /**
+     * QR version (1..40) chosen by the encoder for the text, without rendering
+     *
+     * @param text
+     * @return
+     * @throws WriterException
+     */
+    int qrVersion(String text) throws WriterException {
+        return encode(text).getVersion().getVersionNumber();
+    }
+
+    /**
+     * Error correction used: always H with a logo, that hides part of the modules
+     *
+     * @return
+     */
+    ErrorCorrectionLevel ecLevel() {
+        return style.logo != null ? ErrorCorrectionLevel.H : errorCorrection;
+    }
+
+    /**
+     * Encoder options, rebuilt only when an option changes
+     *
+     * @return
+     */
+    Hashtable<EncodeHintType, Object> hints() {
+        ErrorCorrectionLevel ecLevel = ecLevel();
+        Hashtable<EncodeHintType, Object> hints = this.hints;
+        if (hints != null && hints.get(EncodeHintType.ERROR_CORRECTION) == ecLevel &&
+                hints.containsKey(EncodeHintType.QR_COMPACT) == compact) {
+            return hints;
+        }
+
+        hints = new Hashtable<EncodeHintType, Object>(4);
+        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+        hints.put(EncodeHintType.ERROR_CORRECTION, ecLevel);
+        // The minimal encoder splits the text into the segments that give the smallest version
+        if (compact) hints.put(EncodeHintType.QR_COMPACT, Boolean.TRUE);
+        this.hints = hints;
+        return hints;
+    }
+
     /**
      * Create the folder if it doesn't exist
      *
@@ -182,4 +496,56 @@ public class QRCodeMake {
         }
     }
 
+    /**
+     * Check the renditions: one size for each type, and no (type, size) twice (same file name)
+     *
+     * @param imgTypes
+     * @param sizes
+     * @throws IllegalArgumentException
+     */
+    void checkRenditions(String[] imgTypes, int[] sizes) {
+        if (imgTypes.length == 0 || sizes.length != imgTypes.length) {
+            throw new IllegalArgumentException("One size for each type: " + imgTypes.length + " types, " +
+                    sizes.length + " sizes");
+        }
+        for (int r = 0; r < imgTypes.length; r++) {
+            for (int s = r + 1; s < imgTypes.length; s++) {
+                if (imgTypes[r].equalsIgnoreCase(imgTypes[s]) && sizes[r] == sizes[s]) {
+                    throw new IllegalArgumentException("Rendition repeated: " + imgTypes[r] + " " + sizes[r]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Filename of the rendition 'r': with a single rendition same as 'checkExt()', otherwise
+     * the extension is replaced and, if the type is used more than once, the size is added
+     * (e.g. code_300.png, code_1200.png, code.svg)
+     *
+     * @param s
+     * @param imgTypes
+     * @param sizes
+     * @param r
+     * @return
+     */
+    String renditionName(String s, String[] imgTypes, int[] sizes, int r) {
+        if (imgTypes.length == 1) return checkExt(s, imgTypes[0]);
+
+        // Drop the extension if it is one of the rendition types
+        String lower = s.toLowerCase();
+        for (String type : imgTypes) {
+            if (lower.endsWith("." + type.toLowerCase())) {
+                s = s.substring(0, s.length() - type.length() - 1);
+                break;
+            }
+        }
+
+        int sameType = 0;
+        for (String type : imgTypes) {
+            if (type.equalsIgnoreCase(imgTypes[r])) ++sameType;
+        }
+
+        return (sameType > 1 ? s + "_" + sizes[r] : s) + "." + imgTypes[r].toLowerCase();
+    }
+
 }
@@ -0,0 +1,554 @@
+package it.dibis.qrcodemaker;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.QRCode;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCodeRenderer.java
+ * @version 1.0 (19-10-2026)
+ * @description: renders the encoded qrcode into reused image and output buffers (one instance per thread)
+ */
+class QRCodeRenderer {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCodeRenderer.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    static final int QUIET_ZONE = 4; // Modules, same as ZXing's QRCodeWriter
+
+    // Reused while the image size and colours don't change
+    private BufferedImage image = null;
+    private int imageOnColor = QRCodeStyle.BLACK;
+    private int imageOffColor = QRCodeStyle.WHITE;
+    private BufferedImage styled = null; // 8 bit copy, with the logo
+    private BufferedImage opaque = null; // JPEG view of an image with alpha colours (same pixels)
+    private ColorModel opaqueSource = null; // Colours of the image of the view
+
+    // Logos, shared by the threads: source images and logos ready for a size and colours.
+    // Keyed by file version (see 'logoVersion()'): a logo replaced while the daemon runs is loaded again
+    private static final ConcurrentHashMap<String, BufferedImage> SOURCES = new ConcurrentHashMap<String, BufferedImage>();
+    private static final ConcurrentHashMap<String, Logo> LOGOS = new ConcurrentHashMap<String, Logo>();
+    private static final ConcurrentHashMap<String, String> SVG_LOGOS = new ConcurrentHashMap<String, String>();
+
+    // Encoded image file (JPG, PNG...), reused for every image
+    private final QRCodeBuffer buffer = new QRCodeBuffer(64 * 1024);
+
+    // Text to encode (header + line)
+    private final StringBuilder payload = new StringBuilder(256);
+
+    // Image writers by format and image type
+    private final HashMap<String, ImageWriter> writers = new HashMap<String, ImageWriter>();
+    private String lastType = null;
+    private int lastImageType = -1;
+    private ImageWriter lastWriter = null;
+
+    /**
+     * Header + line[0, end), optionally trimmed, built without intermediate strings
+     *
+     * @param header
+     * @param line
+     * @param end
+     * @param trim
+     * @return
+     */
+    String payload(String header, String line, int end, boolean trim) {
+        int begin = 0;
+        if (trim) {
+            while (begin < end && line.charAt(begin) <= ' ') begin++;
+            while (end > begin && line.charAt(end - 1) <= ' ') end--;
+        }
+
+        payload.setLength(0);
+        payload.append(header).append(line, begin, end);
+        return payload.toString();
+    }
+
+    /**
+     * Render the qrcode on a size x size (at least) image, same layout as ZXing's QRCodeWriter.
+     * The returned image is valid until the next call.
+     *
+     * @param code
+     * @param size
+     * @param style
+     * @return
+     * @throws IOException if the logo can't be read
+     */
+    BufferedImage render(QRCode code, int size, QRCodeStyle style) throws IOException {
+        ByteMatrix input = code.getMatrix();
+        int inputWidth = input.getWidth();
+        int inputHeight = input.getHeight();
+        int qrWidth = inputWidth + (style.quietZone * 2);
+        int qrHeight = inputHeight + (style.quietZone * 2);
+        int outputWidth = Math.max(size, qrWidth);
+        int outputHeight = Math.max(size, qrHeight);
+
+        int multiple = Math.min(outputWidth / qrWidth, outputHeight / qrHeight);
+        int leftPadding = (outputWidth - (inputWidth * multiple)) / 2;
+        int topPadding = (outputHeight - (inputHeight * multiple)) / 2;
+
+        if (image == null || image.getWidth() != outputWidth || image.getHeight() != outputHeight ||
+                imageOnColor != style.onColor || imageOffColor != style.offColor) {
+            image = newImage(outputWidth, outputHeight, style);
+        }
+
+        // 1 bit per pixel, MSB first: 0 = dark (onColor), 1 = light (offColor)
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = (outputWidth + 7) >> 3;
+
+        // Padding rows above and below the modules
+        int bottom = topPadding + inputHeight * multiple;
+        Arrays.fill(pixels, 0, topPadding * stride, (byte) 0xFF);
+        Arrays.fill(pixels, bottom * stride, outputHeight * stride, (byte) 0xFF);
+
+        byte[][] modules = input.getArray();
+        for (int inputY = 0; inputY < inputHeight; inputY++) {
+            // First pixel row of the module row: white, then each run of dark modules as a bit range
+            int row = (topPadding + inputY * multiple) * stride;
+            Arrays.fill(pixels, row, row + stride, (byte) 0xFF);
+            byte[] modulesRow = modules[inputY];
+            int inputX = 0;
+            while (inputX < inputWidth) {
+                if (modulesRow[inputX] != 1) {
+                    inputX++;
+                    continue;
+                }
+                int start = inputX;
+                while (inputX < inputWidth && modulesRow[inputX] == 1) inputX++;
+                clearBits(pixels, row, leftPadding + start * multiple, leftPadding + inputX * multiple);
+            }
+
+            // The other rows of the module row are copies of the first one
+            for (int y = 1; y < multiple; y++) {
+                System.arraycopy(pixels, row, pixels, row + y * stride, stride);
+            }
+        }
+
+        if (style.logo == null) return image;
+        return drawLogo(style, leftPadding, topPadding, inputWidth * multiple, multiple);
+    }
+
+    /**
+     * 1 bit image whose two colours are the style ones (the colour table is the image's colour model)
+     */
+    private BufferedImage newImage(int width, int height, QRCodeStyle style) {
+        imageOnColor = style.onColor;
+        imageOffColor = style.offColor;
+        if (style.isPlainColor()) return new SharedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, null);
+
+        int[] colors = {style.onColor, style.offColor};
+        boolean alpha = (style.onColor >>> 24) != 0xFF || (style.offColor >>> 24) != 0xFF;
+        IndexColorModel colorModel = new IndexColorModel(1, 2, colors, 0, alpha, -1, DataBuffer.TYPE_BYTE);
+        return new SharedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, colorModel);
+    }
+
+    /**
+     * Image that can lend its own raster instead of copies of its regions: the PNG writer reads
+     * each row through getData(rect), that copies it (most of the bytes allocated for a file).
+     * Only for the PNG writer, that reads the rows by coordinates (the BMP one doesn't).
+     */
+    static class SharedImage extends BufferedImage {
+
+        boolean views = false; // getData(rect) returns the image raster (read only by the writer)
+
+        /**
+         * @param colorModel null = the default one of the type
+         */
+        SharedImage(int width, int height, int imageType, IndexColorModel colorModel) {
+            super(width, height, imageType, colorModel != null ? colorModel : defaultColorModel(imageType));
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            if (!views) return super.getData(rect);
+            return getRaster();
+        }
+
+        private static IndexColorModel defaultColorModel(int imageType) {
+            return (IndexColorModel) new BufferedImage(1, 1, imageType).getColorModel();
+        }
+    }
+
+    /**
+     * Logo on its light box, as indexes of a colour table that starts with the two style colours
+     */
+    static class Logo {
+        IndexColorModel colorModel;
+        byte[] indexes;
+        int width;
+        int height;
+    }
+
+    /**
+     * Copy the 1 bit image to the 8 bit one and draw the logo at the centre, on a light box
+     * one module wider. The logo is 1/5 of the symbol side (error correction H).
+     * The image keeps a colour table: the output files cost about as much as the plain ones.
+     *
+     * @return the image with the logo, valid until the next call
+     * @throws IOException
+     */
+    private BufferedImage drawLogo(QRCodeStyle style, int left, int top, int side, int multiple) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Logo logo = logo(style, side / 5, multiple);
+        if (styled == null || styled.getWidth() != width || styled.getHeight() != height ||
+                styled.getColorModel() != logo.colorModel) {
+            styled = new SharedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, logo.colorModel);
+        }
+
+        // 1 bit -> 8 bit: bit 0 (dark) -> index 0, bit 1 (light) -> index 1
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        byte[] indexes = ((DataBufferByte) styled.getRaster().getDataBuffer()).getData();
+        int stride = (width + 7) >> 3;
+        for (int y = 0; y < height; y++) {
+            int row = y * stride;
+            int out = y * width;
+            if (y > 0 && sameRow(pixels, row - stride, row, stride)) {
+                // Rows of the same module: copy the previous one
+                System.arraycopy(indexes, out - width, indexes, out, width);
+                continue;
+            }
+            for (int x = 0; x < width; x++) {
+                indexes[out + x] = (byte) ((pixels[row + (x >> 3)] >> (7 - (x & 7))) & 1);
+            }
+        }
+
+        int x = left + (side - logo.width) / 2;
+        int y = top + (side - logo.height) / 2;
+        for (int row = 0; row < logo.height; row++) {
+            System.arraycopy(logo.indexes, row * logo.width, indexes, (y + row) * width + x, logo.width);
+        }
+
+        return styled;
+    }
+
+    private static boolean sameRow(byte[] pixels, int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (pixels[a + i] != pixels[b + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Logo scaled to fit a side x side box (proportions kept), drawn on the light box and
+     * reduced to a colour table (cached by logo, size and colours)
+     */
+    private static Logo logo(QRCodeStyle style, int side, int multiple) throws IOException {
+        String version = logoVersion(style.logo);
+        String key = version + ":" + side + ":" + multiple + ":" + style.onColor + ":" + style.offColor;
+        Logo logo = LOGOS.get(key);
+        if (logo != null) return logo;
+
+        BufferedImage source = SOURCES.get(version);
+        if (source == null) {
+            source = ImageIO.read(new File(style.logo));
+            if (source == null) throw new IOException("Unknown image format: " + style.logo);
+            dropOldVersions(style.logo, version);
+            SOURCES.put(version, source);
+        }
+
+        double scale = Math.min((double) side / source.getWidth(), (double) side / source.getHeight());
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+        BufferedImage box = new BufferedImage(width + 2 * multiple, height + 2 * multiple, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = box.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.setColor(new Color(style.offColor, true));
+            g.fillRect(0, 0, box.getWidth(), box.getHeight());
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, multiple, multiple, width, height, null);
+        } finally {
+            g.dispose();
+        }
+
+        // Colour table: the two style colours, then the logo ones (a 6x7x6 cube if they are too many)
+        int[] argb = box.getRGB(0, 0, box.getWidth(), box.getHeight(), null, 0, box.getWidth());
+        HashMap<Integer, Integer> table = new HashMap<Integer, Integer>();
+        table.put(style.onColor, 0);
+        table.put(style.offColor, 1);
+        for (int c : argb) {
+            if (table.size() > 256) break;
+            if (!table.containsKey(c)) table.put(c, table.size());
+        }
+        boolean cube = table.size() > 256;
+
+        int[] colors = new int[256];
+        colors[0] = style.onColor;
+        colors[1] = style.offColor;
+        if (cube) {
+            for (int i = 0; i < 6 * 7 * 6; i++) {
+                colors[2 + i] = 0xFF000000 | ((i / 42) * 51) << 16 | (((i / 6) % 7) * 255 / 6) << 8 | (i % 6) * 51;
+            }
+        } else {
+            for (Map.Entry<Integer, Integer> entry : table.entrySet()) colors[entry.getValue()] = entry.getKey();
+        }
+
+        logo = new Logo();
+        logo.width = box.getWidth();
+        logo.height = box.getHeight();
+        logo.indexes = new byte[argb.length];
+        for (int i = 0; i < argb.length; i++) {
+            int c = argb[i];
+            if (c == style.offColor) {
+                logo.indexes[i] = 1;
+            } else if (cube) {
+                int r = ((c >> 16) & 0xFF) * 5 / 255, gr = ((c >> 8) & 0xFF) * 6 / 255, b = (c & 0xFF) * 5 / 255;
+                logo.indexes[i] = (byte) (2 + r * 42 + gr * 6 + b);
+            } else {
+                logo.indexes[i] = (byte) (int) table.get(c);
+            }
+        }
+        boolean alpha = (style.onColor >>> 24) != 0xFF || (style.offColor >>> 24) != 0xFF;
+        logo.colorModel = new IndexColorModel(8, 256, colors, 0, alpha, -1, DataBuffer.TYPE_BYTE);
+
+        LOGOS.put(key, logo);
+        return logo;
+    }
+
+    /**
+     * Set to black (bit 0) the pixels [from, to) of a packed row: whole bytes at once, masks at the ends
+     *
+     * @param pixels
+     * @param row    offset of the row
+     * @param from
+     * @param to
+     */
+    private static void clearBits(byte[] pixels, int row, int from, int to) {
+        int first = row + (from >> 3);
+        int last = row + ((to - 1) >> 3);
+        int headMask = 0xFF >>> (from & 7);               // Bits from 'from' to the end of its byte
+        int tailMask = (0xFF << (7 - ((to - 1) & 7))) & 0xFF; // Bits up to 'to - 1' in its byte
+
+        if (first == last) {
+            pixels[first] &= (byte) ~(headMask & tailMask);
+        } else {
+            pixels[first] &= (byte) ~headMask;
+            Arrays.fill(pixels, first + 1, last, (byte) 0);
+            pixels[last] &= (byte) ~tailMask;
+        }
+    }
+
+    /**
+     * Write the qrcode as SVG into the reused buffer: one path with a rectangle for each run of
+     * dark modules, in module units (quiet zone included), scaled to size x size pixels
+     *
+     * @param code
+     * @param size
+     * @param style
+     * @return the buffer, valid until the next call
+     * @throws IOException if the logo can't be read
+     */
+    ByteArrayOutputStream encodeSvg(QRCode code, int size, QRCodeStyle style) throws IOException {
+        ByteMatrix input = code.getMatrix();
+        int quietZone = style.quietZone;
+        int width = input.getWidth() + (quietZone * 2);
+        int height = input.getHeight() + (quietZone * 2);
+
+        StringBuilder svg = payload; // Reused, the payload has already been encoded
+        svg.setLength(0);
+        svg.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(size)
+                .append("\" height=\"").append(size)
+                .append("\" viewBox=\"0 0 ").append(width).append(' ').append(height)
+                .append("\" shape-rendering=\"crispEdges\">\n")
+                .append("<rect width=\"100%\" height=\"100%\"").append(svgFill(style.offColor)).append("/>\n")
+                .append("<path").append(svgFill(style.onColor)).append(" d=\"");
+
+        for (int y = 0; y < input.getHeight(); y++) {
+            int x = 0;
+            while (x < input.getWidth()) {
+                if (input.get(x, y) != 1) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < input.getWidth() && input.get(x, y) == 1) x++;
+                svg.append('M').append(start + quietZone).append(' ').append(y + quietZone)
+                        .append('h').append(x - start).append("v1h-").append(x - start).append('z');
+            }
+        }
+        svg.append("\"/>\n");
+
+        if (style.logo != null) {
+            // Same box as the raster images: 1/5 of the symbol, one module of margin
+            double side = input.getWidth() / 5.0;
+            double pos = quietZone + (input.getWidth() - side) / 2;
+            svg.append("<rect x=\"").append(pos - 1).append("\" y=\"").append(pos - 1)
+                    .append("\" width=\"").append(side + 2).append("\" height=\"").append(side + 2)
+                    .append("\"").append(svgFill(style.offColor)).append("/>\n")
+                    .append("<image x=\"").append(pos).append("\" y=\"").append(pos)
+                    .append("\" width=\"").append(side).append("\" height=\"").append(side)
+                    .append("\" preserveAspectRatio=\"xMidYMid meet\" href=\"").append(svgLogo(style.logo))
+                    .append("\"/>\n");
+        }
+        svg.append("</svg>\n");
+
+        buffer.reset();
+        for (int i = 0; i < svg.length(); i++) buffer.write(svg.charAt(i)); // ASCII only
+        return buffer;
+    }
+
+    /**
+     * Fill attributes of a colour: its alpha goes in 'fill-opacity', as in the PNG renditions
+     */
+    private static String svgFill(int argb) {
+        int alpha = argb >>> 24;
+        String fill = String.format(" fill=\"#%06X\"", argb & 0xFFFFFF);
+        if (alpha == 0xFF) return fill;
+        return fill + String.format(Locale.ROOT, " fill-opacity=\"%.3f\"", alpha / 255.0);
+    }
+
+    /**
+     * The logo file as a data URI (cached)
+     */
+    private static String svgLogo(String pathname) throws IOException {
+        String version = logoVersion(pathname);
+        String uri = SVG_LOGOS.get(version);
+        if (uri == null) {
+            String ext = pathname.substring(pathname.lastIndexOf('.') + 1).toLowerCase();
+            String mime = ext.equals("svg") ? "image/svg+xml" : ext.equals("jpg") ? "image/jpeg" : "image/" + ext;
+            byte[] data = Files.readAllBytes(new File(pathname).toPath());
+            uri = "data:" + mime + ";base64," + Base64.getEncoder().encodeToString(data);
+            dropOldVersions(pathname, version);
+            SVG_LOGOS.put(version, uri);
+        }
+
+        return uri;
+    }
+
+    /**
+     * Version of a logo file: pathname, modification time and length
+     */
+    private static String logoVersion(String pathname) {
+        File file = new File(pathname);
+        return pathname + ":" + file.lastModified() + "/" + file.length();
+    }
+
+    /**
+     * Remove the cached images of the other versions of a logo file
+     */
+    private static void dropOldVersions(String pathname, String version) {
+        String prefix = pathname + ":";
+        for (ConcurrentHashMap<String, ?> cache : Arrays.asList(SOURCES, LOGOS, SVG_LOGOS)) {
+            cache.keySet().removeIf(key -> key.startsWith(prefix) && !key.equals(version) &&
+                    !key.startsWith(version + ":"));
+        }
+    }
+
+    /**
+     * Encode the image in the given format into the reused buffer
+     *
+     * @param image
+     * @param imgType = {JPG | GIF | PNG | BMP}
+     * @return the buffer, valid until the next call
+     * @throws IOException
+     */
+    ByteArrayOutputStream encodeImage(BufferedImage image, String imgType) throws IOException {
+        if (image.getColorModel().hasAlpha() && isJpeg(imgType)) image = opaque(image);
+        ImageWriter writer = writer(image, imgType);
+        boolean views = image instanceof SharedImage && imgType.equalsIgnoreCase("png");
+        try {
+            // Written straight into the buffer: no cache stream and no copy
+            if (views) ((SharedImage) image).views = true;
+            writer.setOutput(buffer.imageStream());
+            writer.write(image);
+        } finally {
+            if (views) ((SharedImage) image).views = false;
+            writer.reset();
+        }
+
+        return buffer;
+    }
+
+    /**
+     * JPEG output (no alpha)
+     */
+    private static boolean isJpeg(String imgType) {
+        return imgType.equalsIgnoreCase("jpg") || imgType.equalsIgnoreCase("jpeg");
+    }
+
+    /**
+     * The image with its alpha colours blended on white, on the same pixels: JPEG has no alpha
+     * (the colour table is rebuilt only when the image or its colours change)
+     *
+     * @param image with an IndexColorModel
+     * @return
+     */
+    private BufferedImage opaque(BufferedImage image) {
+        if (opaque != null && opaque.getRaster() == image.getRaster() && opaqueSource == image.getColorModel()) {
+            return opaque;
+        }
+
+        IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+        int[] colors = new int[colorModel.getMapSize()];
+        colorModel.getRGBs(colors);
+        for (int i = 0; i < colors.length; i++) {
+            int alpha = colors[i] >>> 24;
+            int rgb = 0xFF000000;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int c = (colors[i] >> shift) & 0xFF;
+                rgb |= ((c * alpha + 255 * (255 - alpha)) / 255) << shift;
+            }
+            colors[i] = rgb;
+        }
+
+        IndexColorModel flat = new IndexColorModel(colorModel.getPixelSize(), colors.length, colors, 0, false, -1,
+                DataBuffer.TYPE_BYTE);
+        opaque = new BufferedImage(flat, image.getRaster(), false, null);
+        opaqueSource = colorModel;
+        return opaque;
+    }
+
+    /**
+     * Same writer that ImageIO.write() would choose, looked up once
+     */
+    private ImageWriter writer(BufferedImage image, String imgType) throws IOException {
+        // Image type and alpha (the colour table of a styled image may have it)
+        int imageType = image.getType() * 2 + (image.getColorModel().hasAlpha() ? 1 : 0);
+        if (imgType.equals(lastType) && imageType == lastImageType) return lastWriter;
+
+        String key = imgType.toLowerCase() + ":" + imageType;
+        ImageWriter writer = writers.get(key);
+        if (writer == null) {
+            Iterator<ImageWriter> iter = ImageIO.getImageWriters(
+                    ImageTypeSpecifier.createFromRenderedImage(image), imgType);
+            if (!iter.hasNext()) throw new IOException("Could not write an image of format " + imgType);
+            writer = iter.next();
+            writers.put(key, writer);
+        }
+
+        lastType = imgType;
+        lastImageType = imageType;
+        lastWriter = writer;
+        return writer;
+    }
+}
@@ -0,0 +1,211 @@
+package it.dibis.qrcodemaker;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCodeStream.java
+ * @version 1.0 (19-10-2026)
+ * @description: streaming mode, reads arch lines ('text|filename') from stdin and writes the images to stdout
+ */
+public class QRCodeStream {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCodeStream.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    public static boolean DEBUG = false;
+
+    public static final String TAR = "tar";     // POSIX ustar archive
+    public static final String FRAMES = "frames"; // [int nameLen][name UTF-8][int dataLen][data]
+
+    private final int BLOCK = 512; // Tar block size
+
+    final QRCodeMake qrcode = new QRCodeMake();
+
+    private final String header;
+    private final String imgType;
+    private final int size;
+    private final String format;
+
+    // Reused for every record: memory doesn't grow with the input
+    private final ByteArrayOutputStream image = new ByteArrayOutputStream(64 * 1024);
+    private final byte[] block = new byte[BLOCK];
+
+    /**
+     * @param header
+     * @param imgType = {JPG | GIF | PNG | BMP}
+     * @param size
+     * @param format  = {TAR | FRAMES}
+     */
+    public QRCodeStream(String header, String imgType, int size, String format) {
+        this.header = header;
+        this.imgType = imgType;
+        this.size = size;
+        this.format = format;
+    }
+
+    /**
+     * Convert every line as soon as it arrives, flushing the output after each record
+     *
+     * @param in
+     * @param os
+     * @return number of lines that failed
+     * @throws IOException
+     */
+    public int run(InputStream in, OutputStream os) throws IOException {
+        int errors = 0;
+
+        // Same lines and names as the arch file read by 'makeFromFileWithManyStrings()'
+        QRCodeMake.ArchReader reader = qrcode.new ArchReader(in, header, imgType);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 64 * 1024));
+
+        String[] record;
+        while ((record = reader.next()) != null) {
+            if (DEBUG) System.err.println(reader.line);
+
+            if (TAR.equals(format) && record[1].getBytes(StandardCharsets.UTF_8).length > 100) {
+                System.err.println("Filename too long for tar: " + record[1]);
+                ++errors;
+                continue;
+            }
+
+            image.reset();
+            int error = qrcode.writeQRImage(record[0], imgType, size, image);
+            if (error != 0) {
+                System.err.println("Error " + error + ": " + record[1]);
+                ++errors;
+                continue;
+            }
+
+            if (TAR.equals(format)) {
+                writeTarEntry(out, record[1]);
+            } else {
+                byte[] name = record[1].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeInt(image.size());
+                image.writeTo(out);
+            }
+            out.flush(); // The consumer gets the record right away
+        }
+
+        if (TAR.equals(format)) {
+            // End of archive: two empty blocks
+            Arrays.fill(block, (byte) 0);
+            out.write(block);
+            out.write(block);
+        }
+        out.flush();
+
+        return errors;
+    }
+
+    /**
+     * Write the ustar header, the image and the padding to the block size
+     *
+     * @param out
+     * @param filename
+     * @throws IOException
+     */
+    private void writeTarEntry(OutputStream out, String filename) throws IOException {
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8); // Max 100 bytes, checked by the caller
+
+        Arrays.fill(block, (byte) 0);
+        System.arraycopy(name, 0, block, 0, name.length);
+        putOctal(0644, 100, 8);                                // mode
+        putOctal(0, 108, 8);                                   // uid
+        putOctal(0, 116, 8);                                   // gid
+        putOctal(image.size(), 124, 12);                       // size
+        putOctal(System.currentTimeMillis() / 1000, 136, 12);  // mtime
+        block[156] = '0';                                      // regular file
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, block, 257, 8);
+
+        // Checksum: computed with the checksum field filled with spaces
+        Arrays.fill(block, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (byte b : block) sum += b & 0xFF;
+        putOctal(sum, 148, 7);
+        block[155] = ' ';
+
+        out.write(block);
+        image.writeTo(out);
+
+        int pad = (BLOCK - image.size() % BLOCK) % BLOCK;
+        Arrays.fill(block, (byte) 0);
+        out.write(block, 0, pad);
+    }
+
+    /**
+     * Zero padded octal number followed by NUL
+     */
+    private void putOctal(long value, int offset, int length) {
+        String s = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int k = s.length() - digits + i;
+            block[offset + i] = (byte) (k < 0 ? '0' : s.charAt(k));
+        }
+        block[offset + digits] = 0;
+    }
+
+    /**
+     * Usage: QRCodeStream [-f tar|frames] [-h header] [-t imgType] [-d size] [-c] [-e L|M|Q|H] [-l logo] [-fg RRGGBB] [-bg RRGGBB] [-q quietZone] < archLines > output
+     *
+     * @param args
+     */
+    public static void main(String args[]) {
+        String format = TAR, header = "", imgType = "png";
+        int size = 300;
+        boolean compact = false;
+        String logo = null;
+        int onColor = QRCodeStyle.BLACK, offColor = QRCodeStyle.WHITE, quietZone = QRCodeRenderer.QUIET_ZONE;
+        ErrorCorrectionLevel ecLevel = ErrorCorrectionLevel.L;
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-c")) {
+                compact = true;
+                continue;
+            }
+            if (++i == args.length) break;
+            String value = args[i];
+            switch (option) {
+                case "-f": format = value; break;
+                case "-h": header = value; break;
+                case "-t": imgType = value; break;
+                case "-d": size = Integer.parseInt(value); break;
+                case "-l": logo = value; break;
+                case "-fg": onColor = QRCodeStyle.parseColor(value); break;
+                case "-bg": offColor = QRCodeStyle.parseColor(value); break;
+                case "-q": quietZone = Integer.parseInt(value); break;
+                case "-e": ecLevel = ErrorCorrectionLevel.valueOf(value.toUpperCase()); break;
+                default: break;
+            }
+        }
+
+        if (!TAR.equals(format) && !FRAMES.equals(format)) {
+            System.err.println("Usage: QRCodeStream [-f tar|frames] [-h header] [-t imgType] [-d size] [-c] [-e L|M|Q|H] [-l logo] [-fg RRGGBB] [-bg RRGGBB] [-q quietZone]");
+            System.exit(1);
+        }
+
+        // stdout carries only the images: any message goes to stderr
+        OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        System.setOut(System.err);
+
+        try {
+            QRCodeStream stream = new QRCodeStream(header, imgType, size, format);
+            stream.qrcode.compact = compact;
+            stream.qrcode.errorCorrection = ecLevel;
+            stream.qrcode.style = new QRCodeStyle(onColor, offColor, quietZone, logo);
+            int errors = stream.run(System.in, stdout);
+            System.exit(errors == 0 ? 0 : 2);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package it.dibis.qrcodemaker;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCodeStyle.java
+ * @version 1.0 (19-10-2026)
+ * @description: colours, quiet zone and centre logo of the qrcode images
+ */
+public class QRCodeStyle {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCodeStyle.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    public static final int BLACK = 0xFF000000;
+    public static final int WHITE = 0xFFFFFFFF;
+
+    public static final QRCodeStyle PLAIN = new QRCodeStyle(BLACK, WHITE, QRCodeRenderer.QUIET_ZONE, null);
+
+    public final int onColor;   // Dark modules (ARGB)
+    public final int offColor;  // Light modules and quiet zone (ARGB)
+    public final int quietZone; // Modules around the symbol
+    public final String logo;   // Pathname of the centre logo, null = no logo
+
+    /**
+     * @param onColor   ARGB
+     * @param offColor  ARGB
+     * @param quietZone modules (the standard asks for 4)
+     * @param logo      pathname of the image, or null. With a logo the error correction is always H
+     */
+    public QRCodeStyle(int onColor, int offColor, int quietZone, String logo) {
+        this.onColor = onColor;
+        this.offColor = offColor;
+        this.quietZone = Math.max(0, quietZone);
+        this.logo = logo;
+    }
+
+    /**
+     * Black on white: the images are written as they come from the renderer
+     *
+     * @return
+     */
+    boolean isPlainColor() {
+        return onColor == BLACK && offColor == WHITE;
+    }
+
+    /**
+     * Colour from 'RRGGBB' or 'AARRGGBB' (hexadecimal, optional '#')
+     *
+     * @param s
+     * @return ARGB
+     */
+    public static int parseColor(String s) {
+        if (s.startsWith("#")) s = s.substring(1);
+        long value = Long.parseLong(s, 16);
+        return (int) (s.length() <= 6 ? 0xFF000000L | value : value);
+    }
+}
@@ -0,0 +1,260 @@
+package it.dibis.qrcodemaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * @package: QRCodeMaker
+ * @file QRCodeWatcher.java
+ * @version 1.0 (19-10-2026)
+ * @description: headless daemon that watches an inbox folder and converts every new arch file
+ */
+public class QRCodeWatcher {
+
+    // Revision control id
+    public static String cvsId = "$Id: QRCodeWatcher.java,v 1.0 19/10/2026 23:59:59 agent $";
+
+    public static boolean DEBUG = false;
+
+    private final long SETTLE_MS = 500; // A file is ready when its size doesn't change for this time
+    private final String ERR_EXT = ".err"; // Suffix of the inputs that failed
+
+    private final Path inbox;
+    private final Path done;
+    private final String folder;
+    private final String header;
+    private final String[] imgTypes;
+    private final int[] sizes;
+
+    private final ExecutorService pool;
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet(); // Files submitted and not yet moved
+
+    // One instance for the whole life of the daemon (warm JVM)
+    final QRCodeMake qrcode = new QRCodeMake();
+
+    /**
+     * @param inbox   folder where the arch files arrive
+     * @param done    folder where the processed arch files are moved
+     * @param folder  output folder: each arch file gets its own sub-folder
+     * @param header
+     * @param imgTypes = {JPG | GIF | PNG | BMP | SVG}, one for each rendition
+     * @param sizes    one for each rendition
+     * @param threads  number of workers
+     */
+    public QRCodeWatcher(String inbox, String done, String folder, String header,
+                         String[] imgTypes, int[] sizes, int threads) {
+        this.inbox = Paths.get(inbox);
+        this.done = Paths.get(done);
+        this.folder = folder;
+        this.header = header;
+        this.imgTypes = imgTypes;
+        this.sizes = sizes;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    /**
+     * Process the files already in the inbox, then wait for the new ones (never returns)
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        qrcode.makeFolder(done.toString());
+        qrcode.makeFolder(folder);
+
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            // Register before the scan: no file can arrive unseen between the two
+            inbox.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            scanInbox();
+
+            while (true) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        scanInbox(); // Some events were lost
+                    } else {
+                        submit(inbox.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    System.out.println("Inbox '" + inbox + "' is no longer accessible!");
+                    break;
+                }
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Wait for the running jobs and stop the workers
+     */
+    public void shutdown() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scanInbox() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inbox)) {
+            for (Path path : stream) submit(path);
+        }
+    }
+
+    /**
+     * Queue a file unless it is hidden, temporary or already queued
+     *
+     * @param path
+     */
+    private void submit(Path path) {
+        String name = path.getFileName().toString();
+        if (name.startsWith(".") || name.endsWith(".tmp") || name.endsWith(".part")) return;
+        if (!Files.isRegularFile(path)) return;
+        if (!pending.add(path)) return; // Already queued (e.g. CREATE + MODIFY)
+
+        pool.execute(() -> {
+            try {
+                process(path);
+            } finally {
+                pending.remove(path);
+            }
+        });
+    }
+
+    /**
+     * Convert the arch file and move it to the done folder
+     *
+     * @param path
+     */
+    private void process(Path path) {
+        try {
+            if (!waitUntilStable(path)) return;
+
+            String name = path.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String outputFolder = folder + File.separator + (dot > 0 ? name.substring(0, dot) : name);
+
+            long time = System.currentTimeMillis();
+            QRCodeFileWriter writer = qrcode.newFileWriter(); // Throughput of this file only
+            int error = qrcode.makeFromFileWithManyStrings(path.toString(), outputFolder, header, imgTypes, sizes, writer);
+            if (DEBUG) System.out.println(name + ": " + (System.currentTimeMillis() - time) + " ms");
+            System.out.println(name + ": " + writer.getThroughput());
+
+            Path target = done.resolve(error == 0 ? name : name + ERR_EXT);
+            Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
+            if (error != 0) System.out.println("Error " + error + " in '" + name + "'");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until the producer has finished writing the file
+     *
+     * @param path
+     * @return false if the file has disappeared
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private boolean waitUntilStable(Path path) throws IOException, InterruptedException {
+        long last = -1;
+        while (Files.exists(path)) {
+            long stamp = Files.size(path) ^ Files.getLastModifiedTime(path).toMillis();
+            if (stamp == last) return true;
+            last = stamp;
+            Thread.sleep(SETTLE_MS);
+        }
+
+        return false;
+    }
+
+    /**
+     * Usage: QRCodeWatcher -i inbox -x done -o folder [-h header] [-t imgType,...] [-d size,...] [-n threads] [-c] [-e L|M|Q|H] [-l logo] [-fg RRGGBB] [-bg RRGGBB] [-q quietZone] [-y none|batch|file]
+     *
+     * @param args
+     */
+    public static void main(String args[]) {
+        String inbox = null, done = null, folder = null, header = "", imgType = "png", size = "300";
+        boolean compact = false;
+        String logo = null;
+        int onColor = QRCodeStyle.BLACK, offColor = QRCodeStyle.WHITE, quietZone = QRCodeRenderer.QUIET_ZONE;
+        ErrorCorrectionLevel ecLevel = ErrorCorrectionLevel.L;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int sync = QRCodeFileWriter.SYNC_NONE;
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-c")) {
+                compact = true;
+                continue;
+            }
+            if (++i == args.length) break;
+            String value = args[i];
+            switch (option) {
+                case "-i": inbox = value; break;
+                case "-x": done = value; break;
+                case "-o": folder = value; break;
+                case "-h": header = value; break;
+                case "-t": imgType = value; break;
+                case "-d": size = value; break;
+                case "-n": threads = Integer.parseInt(value); break;
+                case "-y": sync = value.equals("file") ? QRCodeFileWriter.SYNC_FILE :
+                        value.equals("batch") ? QRCodeFileWriter.SYNC_BATCH : QRCodeFileWriter.SYNC_NONE; break;
+                case "-l": logo = value; break;
+                case "-fg": onColor = QRCodeStyle.parseColor(value); break;
+                case "-bg": offColor = QRCodeStyle.parseColor(value); break;
+                case "-q": quietZone = Integer.parseInt(value); break;
+                case "-e": ecLevel = ErrorCorrectionLevel.valueOf(value.toUpperCase()); break;
+                default: break;
+            }
+        }
+
+        if (inbox == null || done == null || folder == null) {
+            System.out.println("Usage: QRCodeWatcher -i inbox -x done -o folder " +
+                    "[-h header] [-t imgType,...] [-d size,...] [-n threads] [-c] [-e L|M|Q|H] [-l logo] [-fg RRGGBB] [-bg RRGGBB] [-q quietZone] [-y none|batch|file]");
+            System.exit(1);
+        }
+
+        try {
+            // Renditions: -t png,jpg -d 300,1200 (the last size is repeated if sizes are fewer than types)
+            String[] imgTypes = imgType.split(",");
+            String[] sizeList = size.split(",");
+            int[] sizes = new int[imgTypes.length];
+            for (int r = 0; r < sizes.length; r++) {
+                sizes[r] = Integer.parseInt(sizeList[Math.min(r, sizeList.length - 1)].trim());
+                imgTypes[r] = imgTypes[r].trim();
+            }
+
+            QRCodeWatcher watcher = new QRCodeWatcher(inbox, done, folder, header, imgTypes, sizes, threads);
+            watcher.qrcode.compact = compact;
+            watcher.qrcode.errorCorrection = ecLevel;
+            watcher.qrcode.style = new QRCodeStyle(onColor, offColor, quietZone, logo);
+            watcher.qrcode.sync = sync;
+            watcher.qrcode.checkRenditions(imgTypes, sizes); // At start, not at the first file
+            watcher.run();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}